@@ -0,0 +1,196 @@
+package hps.nyu.fa14;
+
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Cheap bounds on the agony of the union of two DAGs, used to skip or put off the
+ * exact solve in AgonyUtil.
+ *
+ * Going around any cycle of length L, the terms labels[u] - labels[v] + 1 add up
+ * to L whatever the ranking, so the cycle pays at least L agony. Cycles that share
+ * no edges therefore give a lower bound. Any ranking at all gives an upper bound,
+ * and each input graph's own layering is free of agony on that graph's edges.
+ **/
+public class AgonyBounds {
+
+    /**
+     * Returns the longest path depth of every node in a DAG, so that every edge
+     * goes from a lower rank to a higher one. Nodes on a cycle, which a valid
+     * input does not have, all get the deepest rank.
+     * @param dag
+     * @return
+     */
+    public static int[] ranks(Graph dag) {
+        int[] inDegree = new int[dag.nodes + 1];
+        for (int u = 1; u <= dag.nodes; u++) {
+            for (int v = 1; v <= dag.nodes; v++) {
+                if (dag.edges[u][v]) {
+                    inDegree[v]++;
+                }
+            }
+        }
+
+        int[] ranks = new int[dag.nodes + 1];
+        Queue<Integer> ready = new LinkedList<Integer>();
+        for (int v = 1; v <= dag.nodes; v++) {
+            if (inDegree[v] == 0) {
+                ready.add(v);
+            }
+        }
+        int placed = 0;
+        int deepest = 0;
+        while (!ready.isEmpty()) {
+            int u = ready.remove();
+            placed++;
+            deepest = Math.max(deepest, ranks[u]);
+            for (int v = 1; v <= dag.nodes; v++) {
+                if (dag.edges[u][v]) {
+                    ranks[v] = Math.max(ranks[v], ranks[u] + 1);
+                    if (--inDegree[v] == 0) {
+                        ready.add(v);
+                    }
+                }
+            }
+        }
+        if (placed < dag.nodes) {
+            for (int v = 1; v <= dag.nodes; v++) {
+                if (inDegree[v] > 0) {
+                    ranks[v] = deepest + 1;
+                }
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * Returns the agony of a graph under the given ranking
+     * @param g
+     * @param ranks
+     * @return
+     */
+    public static int agonyUnder(Graph g, int[] ranks) {
+        int agony = 0;
+        for (int u = 1; u <= g.nodes; u++) {
+            boolean[] row = g.edges[u];
+            int limit = ranks[u] + 1;
+            for (int v = 1; v <= g.nodes; v++) {
+                if (row[v]) {
+                    agony += Math.max(limit - ranks[v], 0);
+                }
+            }
+        }
+        return agony;
+    }
+
+    /**
+     * Returns a lower bound on the agony of the union of a and b: 2 for every edge
+     * the two graphs point in opposite directions, plus 3 for every triangle found
+     * greedily among the edges left over
+     * @param a
+     * @param b
+     * @return
+     */
+    public static int lowerBound(Graph a, Graph b) {
+        Graph union = a.union(b);
+        boolean[][] edges = union.edges;
+        int n = union.nodes;
+        int bound = 0;
+
+        for (int u = 1; u <= n; u++) {
+            for (int v = u + 1; v <= n; v++) {
+                if (edges[u][v] && edges[v][u]) {
+                    bound += 2;
+                    edges[u][v] = false;
+                    edges[v][u] = false;
+                }
+            }
+        }
+
+        // adjacency lists of what is left, so triangles cost edges * degree
+        int[][] out = new int[n + 1][];
+        for (int u = 1; u <= n; u++) {
+            int degree = 0;
+            for (int v = 1; v <= n; v++) {
+                if (edges[u][v]) {
+                    degree++;
+                }
+            }
+            out[u] = new int[degree];
+            degree = 0;
+            for (int v = 1; v <= n; v++) {
+                if (edges[u][v]) {
+                    out[u][degree++] = v;
+                }
+            }
+        }
+
+        for (int u = 1; u <= n; u++) {
+            for (int v : out[u]) {
+                if (!edges[u][v]) {
+                    continue;
+                }
+                for (int w : out[v]) {
+                    if (edges[v][w] && edges[w][u]) {
+                        bound += 3;
+                        edges[u][v] = false;
+                        edges[v][w] = false;
+                        edges[w][u] = false;
+                        break;
+                    }
+                }
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns an upper bound on the agony of the union of a and b, the better of
+     * scoring it under either graph's own ranking
+     * @param a
+     * @param b
+     * @param ranksA ranks(a)
+     * @param ranksB ranks(b)
+     * @return
+     */
+    public static int upperBound(Graph a, Graph b, int[] ranksA, int[] ranksB) {
+        Graph union = a.union(b);
+        return Math.min(agonyUnder(union, ranksA), agonyUnder(union, ranksB));
+    }
+
+    /**
+     * Solves every pair of graphs with AgonyUtil and prints each pair where the
+     * number it reports falls outside the bounds, as "i j lower upper reported
+     * ranked" with 0-indexed graphs, where ranked is the agony of the ranking
+     * AgonyUtil settled on
+     * @param graphs
+     * @param out
+     * @return the number of pairs printed
+     */
+    public static int check(List<Graph> graphs, PrintStream out) {
+        int[][] ranks = new int[graphs.size()][];
+        for (int g = 0; g < graphs.size(); g++) {
+            ranks[g] = ranks(graphs.get(g));
+        }
+        int violations = 0;
+        for (int i = 0; i < graphs.size(); i++) {
+            for (int j = i + 1; j < graphs.size(); j++) {
+                Graph a = graphs.get(i);
+                Graph b = graphs.get(j);
+                int lower = lowerBound(a, b);
+                int upper = upperBound(a, b, ranks[i], ranks[j]);
+                Graph union = a.union(b);
+                int[] labels = new int[union.nodes + 1];
+                int agony = AgonyUtil.getAgony(union, labels);
+                if (agony < lower || agony > upper) {
+                    out.println(i + " " + j + " " + lower + " " + upper + " " + agony
+                            + " " + agonyUnder(union, labels));
+                    violations++;
+                }
+            }
+        }
+        return violations;
+    }
+}
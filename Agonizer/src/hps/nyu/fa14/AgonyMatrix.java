@@ -0,0 +1,578 @@
+package hps.nyu.fa14;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Symmetric matrix of the agony of the union of every pair of input graphs.
+ *
+ * Entries are computed the first time they are asked for and then memoized, so
+ * the GA can start working before every pair has been solved. Each pair is
+ * solved exactly once, even when several threads ask for it at the same time.
+ * While prefetching, getOrRequest lets the GA go on with the bounds of a pair
+ * instead of waiting for it to be solved.
+ **/
+public class AgonyMatrix {
+
+    /**
+     * Number of graphs, the matrix is size x size
+     */
+    public final int size;
+
+    private final AtomicReferenceArray<Graph> graphs;
+
+    /**
+     * One slot per unordered pair i < j, stored row by row in the upper triangle
+     */
+    private final AtomicReferenceArray<Solve> entries;
+
+    /**
+     * Solved agony of each slot, or -1, so that the hot path is a single array read
+     * rather than going through the FutureTask. The high 32 bits hold a version that
+     * is bumped every time the slot is invalidated, and a solve only publishes its
+     * value if the version it started under is still current.
+     */
+    private final AtomicLongArray solved;
+
+    /**
+     * Lower and upper bound on the agony of each slot, filled in before deciding
+     * whether the exact solve is needed
+     */
+    private final AtomicReferenceArray<int[]> bounds;
+
+    /**
+     * AgonyBounds.ranks of each graph
+     */
+    private final AtomicReferenceArray<int[]> ranks;
+
+    /**
+     * Next pair index the prefetch sweep will pick up
+     */
+    private final AtomicInteger prefetchCursor = new AtomicInteger();
+
+    /**
+     * Pairs the GA is likely to ask for soon, prefetched before the sweep goes on
+     */
+    private final ConcurrentLinkedDeque<int[]> urgentPairs = new ConcurrentLinkedDeque<int[]>();
+
+    /**
+     * 1 for each slot waiting in urgentPairs, so that a pair the GA keeps missing
+     * is only queued once
+     */
+    private final AtomicIntegerArray requested;
+
+    /**
+     * Pairs each prefetch task solves before handing its thread back to the pool
+     */
+    private static final int prefetchBatch = 16;
+
+    private ExecutorService prefetcher;
+    private int prefetchWorkers;
+    private final AtomicInteger activePrefetchWorkers = new AtomicInteger();
+    private volatile boolean prefetching = false;
+
+    private GraphSketch sketch;
+
+    /**
+     * Slots in the order the prefetch sweep visits them, or null for index order
+     */
+    private volatile int[] sweepOrder;
+
+    /**
+     * Solves where the number AgonyUtil reported fell outside the bounds
+     */
+    private final AtomicInteger boundViolations = new AtomicInteger();
+
+    public AgonyMatrix(List<Graph> graphs) {
+        this.graphs = new AtomicReferenceArray<Graph>(graphs.toArray(new Graph[graphs.size()]));
+        this.size = graphs.size();
+        this.entries = new AtomicReferenceArray<Solve>(size * (size - 1) / 2);
+        this.solved = new AtomicLongArray(entries.length());
+        for (int index = 0; index < solved.length(); index++) {
+            solved.set(index, pack(0, -1));
+        }
+        this.requested = new AtomicIntegerArray(entries.length());
+        this.bounds = new AtomicReferenceArray<int[]>(entries.length());
+        this.ranks = new AtomicReferenceArray<int[]>(size);
+        for (int g = 0; g < size; g++) {
+            ranks.set(g, AgonyBounds.ranks(graphs.get(g)));
+        }
+    }
+
+    /**
+     * Returns the agony of the union of graphs i and j, solving it if nobody has yet
+     * @param i
+     * @param j
+     * @return
+     */
+    public int get(int i, int j) {
+        if (i == j) {
+            return 0;
+        }
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        int index = indexOf(i, j);
+        long packed = solved.get(index);
+        if (valueOf(packed) >= 0) {
+            return valueOf(packed);
+        }
+        int[] bound = boundsOf(index, i, j);
+        if (bound[0] == bound[1]) {
+            // the bounds pin it down, no need to solve
+            return bound[0];
+        }
+        Solve entry = entries.get(index);
+        if (entry == null) {
+            Solve newEntry = new Solve(new UnionAgony(i, j), versionOf(packed));
+            if (entries.compareAndSet(index, null, newEntry)) {
+                // we won the race, so we are the one that solves it
+                newEntry.run();
+                entry = newEntry;
+            } else {
+                entry = entries.get(index);
+                if (entry == null) {
+                    // invalidated in the meantime, start over against the new graphs
+                    return get(i, j);
+                }
+            }
+        }
+        int value = await(entry);
+        // fails if the pair was invalidated since the solve started, so a stale
+        // value is never visible through the fast path
+        solved.compareAndSet(index, pack(entry.version, -1), pack(entry.version, value));
+        return value;
+    }
+
+    /**
+     * Returns the agony of graphs i and j if it is already known, and otherwise
+     * queues the pair for the prefetcher and returns -1 without waiting. When
+     * nothing is prefetching nobody else would solve it, so it is solved here.
+     * @param i
+     * @param j
+     * @return
+     */
+    public int getOrRequest(int i, int j) {
+        if (i == j) {
+            return 0;
+        }
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        int index = indexOf(i, j);
+        int value = valueOf(solved.get(index));
+        if (value >= 0) {
+            return value;
+        }
+        Solve entry = entries.get(index);
+        if (!prefetching || (entry != null && entry.isDone()) || boundsPinned(index, i, j)) {
+            return get(i, j);
+        }
+        request(i, j, false);
+        return -1;
+    }
+
+    /**
+     * Returns a lower bound on the agony of graphs i and j, which is the agony
+     * itself once it is known
+     * @param i
+     * @param j
+     * @return
+     */
+    public int lowerBound(int i, int j) {
+        return knownBound(i, j, 0);
+    }
+
+    /**
+     * Returns an upper bound on the agony of graphs i and j, which is the agony
+     * itself once it is known
+     * @param i
+     * @param j
+     * @return
+     */
+    public int upperBound(int i, int j) {
+        return knownBound(i, j, 1);
+    }
+
+    private int knownBound(int i, int j, int which) {
+        if (i == j) {
+            return 0;
+        }
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        int index = indexOf(i, j);
+        int value = valueOf(solved.get(index));
+        if (value >= 0) {
+            return value;
+        }
+        return boundsOf(index, i, j)[which];
+    }
+
+    private boolean boundsPinned(int index, int i, int j) {
+        int[] bound = boundsOf(index, i, j);
+        return bound[0] == bound[1];
+    }
+
+    private int[] boundsOf(int index, int i, int j) {
+        int[] bound = bounds.get(index);
+        if (bound != null) {
+            return bound;
+        }
+        Graph a = graphs.get(i);
+        Graph b = graphs.get(j);
+        bound = new int[]{
+                AgonyBounds.lowerBound(a, b),
+                AgonyBounds.upperBound(a, b, ranks.get(i), ranks.get(j))
+        };
+        bounds.compareAndSet(index, null, bound);
+        if (graphs.get(i) != a || graphs.get(j) != b) {
+            // one of the graphs was edited while we were working
+            bounds.compareAndSet(index, bound, null);
+        }
+        return bound;
+    }
+
+    /**
+     * Uses a sketch to decide the order the prefetch sweep solves pairs in: pairs
+     * the sketch thinks are similar first, then by how little they seem to conflict,
+     * since those are the pairs the GA ends up putting in the same cluster. The
+     * sketch never changes any value this matrix returns.
+     * @param sketch
+     */
+    public void useSketch(GraphSketch sketch) {
+        this.sketch = sketch;
+        long[] keys = new long[entries.length()];
+        int index = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                long rank = sketch.estimatedConflict(i, j) + (sketch.isCandidate(i, j) ? 0 : 1L << 30);
+                keys[index] = (rank << 32) | index;
+                index++;
+            }
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            order[k] = (int) keys[k];
+        }
+        sweepOrder = order;
+    }
+
+    /**
+     * Returns how many solves so far AgonyUtil answered outside the bounds for
+     * @return
+     */
+    public int boundViolations() {
+        return boundViolations.get();
+    }
+
+    /**
+     * Returns true if the agony of graphs i and j has already been solved
+     * @param i
+     * @param j
+     * @return
+     */
+    public boolean isComputed(int i, int j) {
+        if (i == j) {
+            return true;
+        }
+        int index = i < j ? indexOf(i, j) : indexOf(j, i);
+        if (valueOf(solved.get(index)) >= 0) {
+            return true;
+        }
+        Solve entry = entries.get(index);
+        return entry != null && entry.isDone();
+    }
+
+    /**
+     * Solves every pair up front on the calling thread
+     */
+    public void computeAll() {
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                get(i, j);
+            }
+        }
+    }
+
+    /**
+     * Replaces graph g with an edited version and forgets the agony of every pair
+     * whose union actually changed. Pairs where the other graph already had every
+     * added or removed edge have the same union, so their agony is kept.
+     * @param g
+     * @param graph
+     */
+    public void updateGraph(final int g, Graph graph) {
+        Graph old = graphs.getAndSet(g, graph);
+        ranks.set(g, AgonyBounds.ranks(graph));
+        if (sketch != null) {
+            sketch.updateGraph(g, graph);
+        }
+
+        List<int[]> changedEdges = new ArrayList<int[]>();
+        for (int u = 1; u <= graph.nodes; u++) {
+            for (int v = 1; v <= graph.nodes; v++) {
+                if (old.edges[u][v] != graph.edges[u][v]) {
+                    changedEdges.add(new int[]{u, v});
+                }
+            }
+        }
+
+        for (int h = 0; h < size; h++) {
+            if (h == g) {
+                continue;
+            }
+            Graph other = graphs.get(h);
+            boolean unionChanged = false;
+            for (int[] edge : changedEdges) {
+                if (!other.edges[edge[0]][edge[1]]) {
+                    unionChanged = true;
+                    break;
+                }
+            }
+            if (unionChanged) {
+                int index = g < h ? indexOf(g, h) : indexOf(h, g);
+                entries.set(index, null);
+                invalidate(index);
+                bounds.set(index, null);
+                // solve the new row in the background as well
+                request(Math.min(g, h), Math.max(g, h), false);
+            }
+        }
+        schedulePrefetch();
+    }
+
+    /**
+     * Moves the pairs that share a cluster in the given partition to the front of the
+     * prefetch queue, ahead of the pairs getOrRequest has queued. The GA calls this
+     * with its current best organism, whose clusters are where it keeps looking.
+     * @param dna cluster of each graph
+     */
+    public void prefetchClusters(List<Integer> dna) {
+        if (!prefetching) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                if (dna.get(i).equals(dna.get(j)) && !isComputed(i, j)) {
+                    request(i, j, true);
+                }
+            }
+        }
+        schedulePrefetch();
+    }
+
+    /**
+     * Queues pair i < j for the prefetcher, at the front of the queue or, if it is
+     * not queued already, at the back. A pair moved to the front may be left queued
+     * a second time further back, where it is skipped once solved.
+     */
+    private void request(int i, int j, boolean first) {
+        int index = indexOf(i, j);
+        if (first) {
+            requested.set(index, 1);
+            urgentPairs.addFirst(new int[]{i, j});
+        } else if (requested.compareAndSet(index, 0, 1)) {
+            urgentPairs.addLast(new int[]{i, j});
+            schedulePrefetch();
+        }
+    }
+
+    /**
+     * Starts solving the pairs nobody has asked for yet on the given pool, the ones
+     * queued by prefetchClusters and updateGraph first and then the rest in order.
+     * Never keeps more than workers of the pool's threads busy at once, and pairs
+     * asked for by get are still solved right away on the asking thread.
+     * @param pool
+     * @param workers
+     */
+    public synchronized void startPrefetch(ExecutorService pool, int workers) {
+        if (prefetcher != null) {
+            return;
+        }
+        prefetcher = pool;
+        prefetchWorkers = workers;
+        prefetching = true;
+        schedulePrefetch();
+    }
+
+    /**
+     * Stops prefetching, pairs already being solved are finished. The pool belongs
+     * to whoever passed it in and is left running.
+     */
+    public synchronized void stopPrefetch() {
+        prefetching = false;
+        urgentPairs.clear();
+    }
+
+    /**
+     * Makes sure there are as many prefetch tasks running as allowed while there is
+     * still work for them. Each task solves a short batch and then reschedules
+     * itself, so it never holds on to a pool thread for long.
+     */
+    private void schedulePrefetch() {
+        while (prefetching && hasPrefetchWork()) {
+            int running = activePrefetchWorkers.get();
+            if (running >= prefetchWorkers) {
+                return;
+            }
+            if (activePrefetchWorkers.compareAndSet(running, running + 1)) {
+                try {
+                    prefetcher.execute(new PrefetchBatch());
+                } catch (RejectedExecutionException e) {
+                    activePrefetchWorkers.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean hasPrefetchWork() {
+        return !urgentPairs.isEmpty() || prefetchCursor.get() < entries.length();
+    }
+
+    private int[] nextPrefetchPair() {
+        int[] pair = urgentPairs.pollFirst();
+        if (pair != null) {
+            requested.set(indexOf(pair[0], pair[1]), 0);
+            return pair;
+        }
+        int index = prefetchCursor.getAndIncrement();
+        if (index < entries.length()) {
+            int[] order = sweepOrder;
+            return pairOf(order == null ? index : order[index]);
+        }
+        return null;
+    }
+
+    private class PrefetchBatch implements Runnable {
+        @Override
+        public void run() {
+            try {
+                int[] pair;
+                for (int solvedPairs = 0; solvedPairs < prefetchBatch && prefetching
+                        && !Thread.currentThread().isInterrupted()
+                        && (pair = nextPrefetchPair()) != null; solvedPairs++) {
+                    if (!isComputed(pair[0], pair[1])) {
+                        get(pair[0], pair[1]);
+                    }
+                }
+            } finally {
+                activePrefetchWorkers.decrementAndGet();
+            }
+            // work may have been queued while every task was busy
+            schedulePrefetch();
+        }
+    }
+
+    private void invalidate(int index) {
+        while (true) {
+            long packed = solved.get(index);
+            if (solved.compareAndSet(index, packed, pack(versionOf(packed) + 1, -1))) {
+                return;
+            }
+        }
+    }
+
+    private static long pack(int version, int value) {
+        return ((long) version << 32) | (value & 0xffffffffL);
+    }
+
+    private static int versionOf(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int valueOf(long packed) {
+        return (int) packed;
+    }
+
+    private int indexOf(int i, int j) {
+        // rows before i hold (size - 1) + (size - 2) + ... + (size - i) entries
+        return i * (2 * size - i - 1) / 2 + (j - i - 1);
+    }
+
+    private int[] pairOf(int index) {
+        int i = 0;
+        int rowLength = size - 1;
+        while (index >= rowLength) {
+            index -= rowLength;
+            rowLength--;
+            i++;
+        }
+        return new int[]{i, i + 1 + index};
+    }
+
+    private static int await(Solve entry) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return entry.get();
+                } catch (InterruptedException e) {
+                    // the pair is shared with other threads, so finish waiting for it
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not compute union agony", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A pending or finished solve, tagged with the version of the slot it belongs to
+     */
+    private static class Solve extends FutureTask<Integer> {
+        final int version;
+
+        public Solve(Callable<Integer> callable, int version) {
+            super(callable);
+            this.version = version;
+        }
+    }
+
+    private class UnionAgony implements Callable<Integer> {
+        private final int i;
+        private final int j;
+
+        public UnionAgony(int i, int j) {
+            this.i = i;
+            this.j = j;
+        }
+
+        @Override
+        public Integer call() {
+            Graph unionGraph = graphs.get(i).union(graphs.get(j));
+            int[] labels = new int[unionGraph.nodes + 1];
+            int reported = AgonyUtil.getAgony(unionGraph, labels);
+            int[] bound = boundsOf(indexOf(i, j), i, j);
+            if (reported < bound[0] || reported > bound[1]) {
+                boundViolations.incrementAndGet();
+            }
+            // AgonyUtil's own number is not always one any ranking reaches, so keep
+            // the better of the agony of its ranking and of the upper bound's ranking
+            return Math.min(bound[1], AgonyBounds.agonyUnder(unionGraph, labels));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package hps.nyu.fa14;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -15,6 +16,20 @@ public class AgonyUtil {
      * @return The agony as calculated under an optimal ranking.
      */
     public static int getAgony(Graph g){
+        return getAgony(g, new int[g.nodes + 1]);
+    }
+
+    /**
+     * Like getAgony(g), but also fills labels with a ranking built from the split
+     * into a DAG and an eulerian part that it found. Scoring that ranking against g
+     * always gives an agony some ranking really has, which the returned value is not
+     * guaranteed to be.
+     * @param g
+     * @param labels an array of g.nodes + 1 entries, overwritten with the rank of each node
+     * @return
+     */
+    public static int getAgony(Graph g, int[] labels){
+        Graph original = g;
         // Copy g so that it does not get modified
         g = g.clone();
         
@@ -50,34 +65,70 @@ public class AgonyUtil {
         // all edges in g1 labeled -1 form a DAG
         // rest of the edges form an eulerian subgraph
         // label all vertices as 0
-        int[] labels = new int[g.nodes + 1];
+        int[] faultyLabels = new int[g.nodes + 1];
         List<Integer> faultyEdge = null;
-        while ((faultyEdge = getFaultyEdgeIfExists(w, labels)).size() > 0) {
-            labels[faultyEdge.get(1)] = labels[faultyEdge.get(0)]
+        while ((faultyEdge = getFaultyEdgeIfExists(w, faultyLabels)).size() > 0) {
+            faultyLabels[faultyEdge.get(1)] = faultyLabels[faultyEdge.get(0)]
                     - w[faultyEdge.get(0)][faultyEdge.get(1)];
         }
+        rank(original, w, labels);
 
         // calculate agony for this graph now.
         // this is the agony of the pair i and j
-        return getAgony(w, labels);
+        return getAgony(w, faultyLabels);
+    }
+
+    /**
+     * Ranks the nodes so that every DAG edge (weight -1) goes up at least one rank
+     * and every eulerian edge (weight 1) drops at most one, by relaxing those
+     * constraints as longest paths. If the split is not consistent the constraints
+     * have no solution, so this stops after one round per node with whatever
+     * ranking it has reached.
+     * @param g
+     * @param w
+     * @param labels
+     */
+    private static void rank(Graph g, int[][] w, int[] labels) {
+        List<int[]> constraints = new ArrayList<int[]>();
+        for(int u = 1; u <= g.nodes; u++) {
+            for(int v = 1; v <= g.nodes; v++) {
+                if(g.edges[u][v]) {
+                    if(w[u][v] == 1) {
+                        // labels[u] >= labels[v] - 1
+                        constraints.add(new int[]{v, u, -1});
+                    } else {
+                        // labels[v] >= labels[u] + 1
+                        constraints.add(new int[]{u, v, 1});
+                    }
+                }
+            }
+        }
+        Arrays.fill(labels, 0);
+        boolean changed = true;
+        for(int round = 0; round < g.nodes && changed; round++) {
+            changed = false;
+            for(int[] c : constraints) {
+                if(labels[c[1]] < labels[c[0]] + c[2]) {
+                    labels[c[1]] = labels[c[0]] + c[2];
+                    changed = true;
+                }
+            }
+        }
     }
     
     public static int getAgony(int[][] graph, int[] labels) {
         int agony = 0;
         for(int u = 1; u < graph.length; u++) {
-            for(int v = 1; v < graph.length; v++) {
-                if(graph[u][v] > 0) {
-                    agony += Math.max(labels[u] - labels[v] + 1, 0);
-                }
-            }
+            agony += Kernels.rowAgony(graph[u], labels, labels[u], 1);
         }
         return agony;
     }
     
     private static void reverseAllPositiveEdges(Graph g, int[][] weights) {
         for(int i = 1; i <= g.nodes; i++) {
+            int[] row = weights[i];
             for(int j = 1; j <= g.nodes; j++) {
-                if(weights[i][j] == 1) {
+                if(row[j] == 1) {
                     g.edges[j][i] = true;
                     g.edges[j][i] = false;
                 }
@@ -0,0 +1,182 @@
+package hps.nyu.fa14;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps a solver resident so that many small problems do not each pay for jvm
+ * startup and a cold JIT.
+ *
+ * Clients connect to a localhost port and send a problem in the usual input format.
+ * Every time a better partition is found a line of "agony p1 p2 ... pG" is sent back,
+ * with partitions 1-indexed as in the output file, followed by "done" when the
+ * search finishes. Connections beyond the concurrency limit get "busy" and are closed.
+ **/
+public class Daemon {
+    public static final int DEFAULT_PORT = 7777;
+    private static final int maxConcurrent = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    // prefetching and seeding for every request share this many threads
+    private static final int backgroundThreads = Runtime.getRuntime().availableProcessors();
+    private static final int backgroundWorkersPerRequest = Math.max(1, backgroundThreads / maxConcurrent);
+    // a client has this long to send its problem before its slot is given back
+    private static final int readTimeoutMillis = 10000;
+    // longest a single request may search for
+    private static final long requestMillis = 60000;
+    private static final int maxNodes = 500;
+    private static final int maxGraphs = 500;
+    private static final long warmupMillis = 5000;
+    private static final int warmupNodes = 20;
+    private static final int warmupGraphs = 20;
+    private static final int warmupPartitions = 3;
+
+    private final int port;
+    private final ExecutorService workers = Executors.newFixedThreadPool(maxConcurrent);
+    private final Semaphore admission = new Semaphore(maxConcurrent);
+    private final ExecutorService background = Solver.backgroundPool(backgroundThreads);
+
+    public Daemon(int port) {
+        this.port = port;
+    }
+
+    public void run() throws IOException {
+        warmup();
+
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println("Listening on port " + port);
+        try {
+            while (true) {
+                final Socket client = server.accept();
+                if (!admission.tryAcquire()) {
+                    reject(client);
+                    continue;
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handle(client);
+                        } finally {
+                            // free the slot before the client sees the connection
+                            // close, so it can send its next problem straight away
+                            admission.release();
+                            close(client);
+                        }
+                    }
+                });
+            }
+        } finally {
+            server.close();
+            workers.shutdownNow();
+            background.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the GA on a random problem for a few seconds so that AgonyUtil and
+     * Organism are compiled before the first real request arrives
+     */
+    private void warmup() {
+        List<Graph> graphs = new ArrayList<Graph>(warmupGraphs);
+        for (int i = 0; i < warmupGraphs; i++) {
+            graphs.add(Graph.randomDAG(warmupNodes));
+        }
+        final Solver solver = new Solver(new Problem(warmupNodes, warmupPartitions, graphs), new Random(),
+                background, backgroundWorkersPerRequest);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                solver.solve(new Solver.Listener() {
+                    @Override
+                    public void newBest(Organism organism, int agony) {
+                    }
+
+                    @Override
+                    public void newCycle(int cycle) {
+                    }
+                });
+            }
+        }, "warmup");
+        thread.start();
+        try {
+            thread.join(warmupMillis);
+            solver.stop();
+            thread.join();
+        } catch (InterruptedException e) {
+            solver.stop();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reject(Socket client) {
+        try {
+            PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+            out.println("busy");
+            client.close();
+        } catch (IOException e) {
+            // client is gone anyway
+        }
+    }
+
+    private void handle(Socket client) {
+        try {
+            client.setSoTimeout(readTimeoutMillis);
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            final PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+
+            Problem problem;
+            try {
+                problem = Problem.read(in, maxNodes, maxGraphs);
+            } catch (IOException e) {
+                out.println("error " + e.getMessage());
+                return;
+            } catch (RuntimeException e) {
+                out.println("error Cannot parse problem");
+                return;
+            }
+
+            final Solver solver = new Solver(problem, new Random(), background, backgroundWorkersPerRequest);
+            solver.setTimeLimit(requestMillis);
+            solver.solve(new Solver.Listener() {
+                @Override
+                public void newBest(Organism organism, int agony) {
+                    StringBuilder line = new StringBuilder();
+                    line.append(agony);
+                    for (int i = 0; i < organism.dnaSize; i++) {
+                        line.append(' ').append(organism.dna.get(i) + 1);
+                    }
+                    out.println(line);
+                    if (out.checkError()) {
+                        // nobody is listening any more
+                        solver.stop();
+                    }
+                }
+
+                @Override
+                public void newCycle(int cycle) {
+                }
+            });
+            out.println("done");
+        } catch (IOException e) {
+            System.out.println("IO Error");
+        }
+    }
+
+    private void close(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+}
@@ -120,9 +120,7 @@ public class Graph {
         }
         Graph g = new Graph(this.nodes);
         for(int i = 1; i <= this.nodes; i++){
-            for(int j = 1; j <= this.nodes; j++){
-                g.edges[i][j] = this.edges[i][j] || other.edges[i][j];
-            }
+            Kernels.or(this.edges[i], other.edges[i], g.edges[i], 1, this.nodes + 1);
         }
         return g;
     }
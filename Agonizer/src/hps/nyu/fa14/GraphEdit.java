@@ -0,0 +1,37 @@
+package hps.nyu.fa14;
+
+/**
+ * A single edge inserted into or deleted from one of the input graphs
+ **/
+public class GraphEdit {
+    /**
+     * Index of the graph in the problem, 0-indexed
+     */
+    public final int graph;
+
+    /**
+     * Endpoints of the edge, nodes are 1-indexed
+     */
+    public final int from;
+    public final int to;
+
+    /**
+     * True to add the edge, false to remove it
+     */
+    public final boolean insert;
+
+    public GraphEdit(int graph, int from, int to, boolean insert) {
+        this.graph = graph;
+        this.from = from;
+        this.to = to;
+        this.insert = insert;
+    }
+
+    public static GraphEdit insert(int graph, int from, int to) {
+        return new GraphEdit(graph, from, to, true);
+    }
+
+    public static GraphEdit delete(int graph, int from, int to) {
+        return new GraphEdit(graph, from, to, false);
+    }
+}
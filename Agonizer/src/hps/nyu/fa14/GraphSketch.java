@@ -0,0 +1,190 @@
+package hps.nyu.fa14;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * MinHash sketches of the edge sets of a list of graphs, used to cheaply guess
+ * which pairs conflict least, so their exact agony can be solved first.
+ *
+ * Every edge (u, v) of graph A that appears as (v, u) in graph B forms a 2-cycle in
+ * the union, and each 2-cycle costs at least 2 agony. Comparing the signature of A
+ * against the signature of B with every edge reversed estimates how many such
+ * pairs there are in O(k) per pair. This only counts 2-cycles and is far below the
+ * real agony, so it is good for ordering pairs but must never stand in for it.
+ **/
+public class GraphSketch {
+
+    private static final long PRIME = Integer.MAX_VALUE;
+
+    /**
+     * Number of hash functions in each signature
+     */
+    public final int k;
+
+    /**
+     * Number of LSH bands the signatures are cut into, each band has k / bands rows
+     */
+    public final int bands;
+
+    private final int size;
+    private final long[] a;
+    private final long[] b;
+    private final int[] edgeCounts;
+    private final long[][] signatures;
+    private final long[][] reversedSignatures;
+    private final long[][] bandKeys;
+    private final int[][] estimates;
+    private final boolean[][] candidates;
+
+    public GraphSketch(List<Graph> graphs, int k, int bands, Random rand) {
+        if (k % bands != 0) {
+            throw new IllegalArgumentException("Signature length must be a multiple of the number of bands");
+        }
+        this.k = k;
+        this.bands = bands;
+        this.size = graphs.size();
+
+        a = new long[k];
+        b = new long[k];
+        for (int h = 0; h < k; h++) {
+            a[h] = 1 + rand.nextInt(Integer.MAX_VALUE - 1);
+            b[h] = rand.nextInt(Integer.MAX_VALUE);
+        }
+
+        edgeCounts = new int[size];
+        signatures = new long[size][k];
+        reversedSignatures = new long[size][k];
+        bandKeys = new long[size][bands];
+        for (int g = 0; g < size; g++) {
+            sign(g, graphs.get(g));
+        }
+
+        estimates = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                int estimate = 2 * estimateReciprocalEdges(i, j);
+                estimates[i][j] = estimate;
+                estimates[j][i] = estimate;
+            }
+        }
+
+        candidates = new boolean[size][size];
+        for (int band = 0; band < bands; band++) {
+            Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+            for (int g = 0; g < size; g++) {
+                long key = bandKeys[g][band];
+                List<Integer> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Integer>();
+                    buckets.put(key, bucket);
+                }
+                for (int other : bucket) {
+                    candidates[g][other] = true;
+                    candidates[other][g] = true;
+                }
+                bucket.add(g);
+            }
+        }
+    }
+
+    /**
+     * Re-sketches graph g after its edges changed and refreshes its row of
+     * estimates and LSH candidates
+     * @param g
+     * @param graph
+     */
+    public synchronized void updateGraph(int g, Graph graph) {
+        sign(g, graph);
+        for (int other = 0; other < size; other++) {
+            if (other == g) {
+                continue;
+            }
+            int estimate = 2 * estimateReciprocalEdges(g, other);
+            estimates[g][other] = estimate;
+            estimates[other][g] = estimate;
+
+            boolean candidate = false;
+            for (int band = 0; band < bands && !candidate; band++) {
+                candidate = bandKeys[g][band] == bandKeys[other][band];
+            }
+            candidates[g][other] = candidate;
+            candidates[other][g] = candidate;
+        }
+    }
+
+    /**
+     * Returns twice the estimated number of edges of i that j points the other way.
+     * This is only a rough measure of how badly the two conflict and is not an agony.
+     * @param i
+     * @param j
+     * @return
+     */
+    public int estimatedConflict(int i, int j) {
+        return estimates[i][j];
+    }
+
+    /**
+     * Returns true if graphs i and j landed in the same LSH bucket in at least one
+     * band, meaning their edge sets are likely to be similar
+     * @param i
+     * @param j
+     * @return
+     */
+    public boolean isCandidate(int i, int j) {
+        return candidates[i][j];
+    }
+
+    private void sign(int g, Graph graph) {
+        long[] signature = signatures[g];
+        long[] reversedSignature = reversedSignatures[g];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        Arrays.fill(reversedSignature, Long.MAX_VALUE);
+        edgeCounts[g] = 0;
+        for (int u = 1; u <= graph.nodes; u++) {
+            for (int v = 1; v <= graph.nodes; v++) {
+                if (!graph.edges[u][v]) {
+                    continue;
+                }
+                edgeCounts[g]++;
+                long edge = (long) u * (graph.nodes + 1) + v;
+                long reversed = (long) v * (graph.nodes + 1) + u;
+                for (int h = 0; h < k; h++) {
+                    signature[h] = Math.min(signature[h], hash(a[h], b[h], edge));
+                    reversedSignature[h] = Math.min(reversedSignature[h], hash(a[h], b[h], reversed));
+                }
+            }
+        }
+
+        int rows = k / bands;
+        for (int band = 0; band < bands; band++) {
+            long key = 17;
+            for (int r = band * rows; r < (band + 1) * rows; r++) {
+                key = key * 31 + signature[r];
+            }
+            bandKeys[g][band] = key;
+        }
+    }
+
+    private int estimateReciprocalEdges(int i, int j) {
+        // jaccard similarity of edges(i) and reversed edges(j)
+        int agree = 0;
+        for (int h = 0; h < k; h++) {
+            if (signatures[i][h] == reversedSignatures[j][h]) {
+                agree++;
+            }
+        }
+        double jaccard = (double) agree / k;
+        // |A n B| = J * |A u B| = J * (|A| + |B|) / (1 + J)
+        return (int) Math.round(jaccard * (edgeCounts[i] + edgeCounts[j]) / (1 + jaccard));
+    }
+
+    private static long hash(long a, long b, long x) {
+        // universal hash (a * x + b) mod p, all three are below 2^31 so this cannot overflow
+        return (a * x + b) % PRIME;
+    }
+}
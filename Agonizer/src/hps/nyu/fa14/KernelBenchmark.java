@@ -0,0 +1,195 @@
+package hps.nyu.fa14;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times each kernel in its scalar and Vector API versions against the plain nested
+ * loop it replaced, on random 5% dense graphs from 150 to 5000 nodes. Results go to
+ * stdout and to bench_output.txt in the working directory. Run with --add-modules
+ * jdk.incubator.vector to include the vector column.
+ **/
+public class KernelBenchmark {
+    private static final int[] sizes = {150, 1000, 5000};
+    private static final double density = 0.05;
+    private static final int rounds = 7;
+    // roughly how many element visits each timed round is allowed
+    private static final long workPerRound = 200000000L;
+
+    private interface Task {
+        /**
+         * Runs the code being timed once and returns something that depends on the
+         * result, so that the JIT cannot drop the work
+         */
+        long run();
+    }
+
+    private final Random rand = new Random(1);
+    private final PrintWriter out;
+
+    private KernelBenchmark(PrintWriter out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter("bench_output.txt"));
+        try {
+            KernelBenchmark benchmark = new KernelBenchmark(out);
+            benchmark.report("kernels in use: " + Kernels.implementation());
+            for (int n : sizes) {
+                benchmark.union(n);
+                benchmark.rowAgony(n);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void union(int n) {
+        final boolean[][] a = randomMatrix(n);
+        final boolean[][] b = randomMatrix(n);
+        final boolean[][] union = new boolean[n + 1][n + 1];
+        final int size = n;
+
+        Task naive = new Task() {
+            @Override
+            public long run() {
+                for (int i = 1; i <= size; i++) {
+                    for (int j = 1; j <= size; j++) {
+                        union[i][j] = a[i][j] || b[i][j];
+                    }
+                }
+                return checksum(union);
+            }
+        };
+        compare("union", n, (long) n * n, naive, unionWith(Kernels.scalar(), a, b, union),
+                unionWith(Kernels.vector(), a, b, union));
+    }
+
+    private Task unionWith(final Kernels.Ops ops, final boolean[][] a, final boolean[][] b, final boolean[][] union) {
+        if (ops == null) {
+            return null;
+        }
+        return new Task() {
+            @Override
+            public long run() {
+                for (int i = 1; i < union.length; i++) {
+                    ops.or(a[i], b[i], union[i], 1, union.length);
+                }
+                return checksum(union);
+            }
+        };
+    }
+
+    private void rowAgony(int n) {
+        boolean[][] edges = randomMatrix(n);
+        final int[][] weights = new int[n + 1][n + 1];
+        for (int u = 1; u <= n; u++) {
+            for (int v = 1; v <= n; v++) {
+                weights[u][v] = edges[u][v] ? 1 : 0;
+            }
+        }
+        final int[] labels = new int[n + 1];
+        for (int v = 1; v <= n; v++) {
+            labels[v] = rand.nextInt(n);
+        }
+
+        Task naive = new Task() {
+            @Override
+            public long run() {
+                int agony = 0;
+                for (int u = 1; u < weights.length; u++) {
+                    for (int v = 1; v < weights.length; v++) {
+                        if (weights[u][v] > 0) {
+                            agony += Math.max(labels[u] - labels[v] + 1, 0);
+                        }
+                    }
+                }
+                return agony;
+            }
+        };
+        compare("rowAgony", n, (long) n * n, naive, rowAgonyWith(Kernels.scalar(), weights, labels),
+                rowAgonyWith(Kernels.vector(), weights, labels));
+    }
+
+    private Task rowAgonyWith(final Kernels.Ops ops, final int[][] weights, final int[] labels) {
+        if (ops == null) {
+            return null;
+        }
+        return new Task() {
+            @Override
+            public long run() {
+                int agony = 0;
+                for (int u = 1; u < weights.length; u++) {
+                    agony += ops.rowAgony(weights[u], labels, labels[u], 1);
+                }
+                return agony;
+            }
+        };
+    }
+
+    /**
+     * Runs every version for the same number of rounds, taking turns so none gets
+     * a warmer cache, and reports the fastest round of each per call. vector may be
+     * null when the module is missing.
+     */
+    private void compare(String name, int n, long workPerCall, Task naive, Task scalar, Task vector) {
+        Task[] tasks = vector == null ? new Task[]{naive, scalar} : new Task[]{naive, scalar, vector};
+        int calls = (int) Math.max(1, workPerRound / workPerCall);
+        long[] best = new long[tasks.length];
+        long[] result = new long[tasks.length];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int round = 0; round < rounds; round++) {
+            for (int t = 0; t < tasks.length; t++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < calls; i++) {
+                    result[t] = tasks[t].run();
+                }
+                best[t] = Math.min(best[t], System.nanoTime() - start);
+            }
+        }
+        for (int t = 1; t < tasks.length; t++) {
+            if (result[t] != result[0]) {
+                throw new IllegalStateException(name + " disagrees with the plain loop at n=" + n);
+            }
+        }
+
+        StringBuilder line = new StringBuilder(String.format("%-9s n=%-5d naive %9.3f ms  scalar %9.3f ms (%.2fx)",
+                name, n, best[0] / 1e6 / calls, best[1] / 1e6 / calls, (double) best[0] / best[1]));
+        if (vector != null) {
+            line.append(String.format("  vector %9.3f ms (%.2fx)", best[2] / 1e6 / calls, (double) best[0] / best[2]));
+        }
+        report(line.toString());
+    }
+
+    private void report(String line) {
+        System.out.println(line);
+        out.println(line);
+        out.flush();
+    }
+
+    private static long checksum(boolean[][] matrix) {
+        long sum = 0;
+        for (int i = 1; i < matrix.length; i += 7) {
+            for (int j = 1; j < matrix.length; j += 3) {
+                if (matrix[i][j]) {
+                    sum += i * 31 + j;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private boolean[][] randomMatrix(int n) {
+        boolean[][] edges = new boolean[n + 1][n + 1];
+        for (int u = 1; u <= n; u++) {
+            for (int v = 1; v <= n; v++) {
+                edges[u][v] = u != v && rand.nextDouble() < density;
+            }
+        }
+        return edges;
+    }
+}
@@ -0,0 +1,114 @@
+package hps.nyu.fa14;
+
+/**
+ * The dense row loops of the solver. Each one runs over a range of one or two
+ * arrays indexed the same way, so a row of a matrix or a slice of a flattened one
+ * can be passed as is.
+ *
+ * At class load a probe picks the implementation: VectorKernels, written with the
+ * jdk.incubator.vector API, if the module is present (run with --add-modules
+ * jdk.incubator.vector) and agrees with the scalar loops on a test input, and
+ * ScalarKernels otherwise. Setting -Dagonizer.kernels=scalar skips the probe.
+ **/
+public final class Kernels {
+
+    /**
+     * One implementation of the kernels, see the static methods for what each does
+     */
+    interface Ops {
+        void or(boolean[] a, boolean[] b, boolean[] out, int from, int to);
+
+        int rowAgony(int[] weights, int[] labels, int labelU, int from);
+    }
+
+    private static final Ops scalar = new ScalarKernels();
+    private static final Ops vector = probeVector();
+    private static final Ops ops = "scalar".equals(System.getProperty("agonizer.kernels")) || vector == null
+            ? scalar : vector;
+
+    private Kernels() {
+    }
+
+    /**
+     * out[j] = a[j] | b[j] for j in [from, to)
+     */
+    public static void or(boolean[] a, boolean[] b, boolean[] out, int from, int to) {
+        ops.or(a, b, out, from, to);
+    }
+
+    /**
+     * Returns the agony that the edges leaving node u pay under a ranking, the sum of
+     * max(labels[u] - labels[v] + 1, 0) over every v from the given one on with a
+     * positive weight
+     * @param weights row u of the weight matrix
+     * @param labels rank of each node
+     * @param labelU rank of node u
+     * @param from first node to look at
+     * @return
+     */
+    public static int rowAgony(int[] weights, int[] labels, int labelU, int from) {
+        return ops.rowAgony(weights, labels, labelU, from);
+    }
+
+    /**
+     * Returns the name of the implementation in use
+     * @return
+     */
+    public static String implementation() {
+        return ops == vector ? "vector" : "scalar";
+    }
+
+    static Ops scalar() {
+        return scalar;
+    }
+
+    /**
+     * Returns the Vector API implementation, or null if this JVM cannot run it
+     * @return
+     */
+    static Ops vector() {
+        return vector;
+    }
+
+    private static Ops probeVector() {
+        Ops candidate;
+        try {
+            // loaded by name so that this class still links without the module
+            candidate = (Ops) Class.forName("hps.nyu.fa14.VectorKernels").newInstance();
+        } catch (Throwable e) {
+            return null;
+        }
+
+        // make sure it runs and agrees with the scalar loops, tails included
+        int n = 77;
+        boolean[] a = new boolean[n];
+        boolean[] b = new boolean[n];
+        int[] weights = new int[n];
+        int[] labels = new int[n];
+        for (int j = 0; j < n; j++) {
+            a[j] = j % 3 == 0;
+            b[j] = j % 5 == 0;
+            weights[j] = j % 4 == 0 ? 0 : j % 3;
+            labels[j] = (j * 37) % 23;
+        }
+        boolean[] expected = new boolean[n];
+        boolean[] actual = new boolean[n];
+        try {
+            scalar.or(a, b, expected, 1, n);
+            candidate.or(a, b, actual, 1, n);
+            for (int j = 0; j < n; j++) {
+                if (expected[j] != actual[j]) {
+                    return null;
+                }
+            }
+            for (int labelU = 0; labelU < 30; labelU += 7) {
+                if (scalar.rowAgony(weights, labels, labelU, 1) != candidate.rowAgony(weights, labels, labelU, 1)) {
+                    return null;
+                }
+            }
+        } catch (Throwable e) {
+            return null;
+        }
+        return candidate;
+    }
+}
@@ -9,42 +9,35 @@ import java.util.Random;
  */
 public class Organism {
     public List<Integer> dna;
-    public static int dnaSize;
-    public static int maxDna;
-    public static int[][] agonyMatrix;
-    public static List<Graph> graphs;
-    public static Random rand;
-    private final double mutationRate = 0.15;
+    public final int dnaSize;
+    public final int maxDna;
+    final Solver solver;
     private final boolean doMatching = true;
     private int agony = -1;
+    // scored with the upper bound of a pair that had not been solved yet
+    private boolean provisional = false;
 
 
-    public static void setParams(int maxDna, List<Graph> graphs, int[][] agonyMatrix, Random rand) {
-        dnaSize = agonyMatrix.length;
-        Organism.maxDna = maxDna;
-        Organism.agonyMatrix = agonyMatrix;
-        Organism.rand = rand;
-        Organism.graphs = graphs;
-    }
-
     // Default constructor generates random organisms
-    public Organism() {
-        dna = new ArrayList<Integer>(dnaSize);
+    public Organism(Solver solver) {
+        this(solver, new ArrayList<Integer>(solver.numGraphs));
 
         for (int i = 0; i < dnaSize; i++) {
-           dna.add(rand.nextInt(maxDna));
+           dna.add(solver.rand.nextInt(maxDna));
         }
     }
 
     // offspring of parents
     public Organism(Organism a, Organism b) {
+        this(a.solver, new ArrayList<Integer>(a.dnaSize));
+        Random rand = solver.rand;
+        double mutationRate = solver.mutationRate;
+
         if (doMatching) {
             a = a.clone();
             a.match(b);
         }
 
-        dna = new ArrayList<Integer>(dnaSize);
-
         for (int i = 0; i < dnaSize; i++) {
             int dnaVal;
             // mutation
@@ -61,12 +54,15 @@ public class Organism {
         }
     }
 
-    public Organism(List<Integer> dna) {
+    public Organism(Solver solver, List<Integer> dna) {
+        this.solver = solver;
+        this.dnaSize = solver.numGraphs;
+        this.maxDna = solver.numPartitions;
         this.dna = new ArrayList<Integer>(dna);
     }
 
     public Organism clone() {
-        return new Organism(dna);
+        return new Organism(solver, dna);
     }
 
     public void match(Organism other) {
@@ -131,34 +127,94 @@ public class Organism {
         }
     }
 
+    /**
+     * Forgets the cached agony, for when the agony matrix has changed underneath
+     */
+    public void invalidate() {
+        agony = -1;
+    }
+
+    /**
+     * Returns true if the agony was scored before every pair it depends on had been
+     * solved. It is still the agony of some ranking of each cluster, but may come
+     * down once those pairs are known.
+     * @return
+     */
+    public boolean isProvisional() {
+        getAgony();
+        return provisional;
+    }
+
+    /**
+     * Scores the organism exactly if it is provisional, solving the pairs it is
+     * still missing on this thread
+     */
+    public void settle() {
+        if (isProvisional()) {
+            score(true);
+        }
+    }
+
     public int getAgony() {
         if (agony == -1) {
-            List<List<Integer>> clusters = new ArrayList<List<Integer>>(maxDna);
-            for (int i = 0; i < maxDna; i++) {
-                clusters.add(new ArrayList<Integer>());
-            }
+            score(false);
+        }
+        return agony;
+    }
+
+    private void score(boolean wait) {
+        // lay the clusters out one after another in a single array
+        int[] clusterStart = new int[maxDna + 1];
+        for (int i = 0; i < dnaSize; i++) {
+            clusterStart[dna.get(i) + 1]++;
+        }
+        for (int i = 0; i < maxDna; i++) {
+            clusterStart[i + 1] += clusterStart[i];
+        }
+        int[] members = new int[dnaSize];
+        int[] filled = new int[maxDna];
+        for (int i = 0; i < dnaSize; i++) {
+            int cluster = dna.get(i);
+            members[clusterStart[cluster] + filled[cluster]++] = i;
+        }
 
-            for (int i = 0; i < dnaSize; i++) {
-                int cluster = dna.get(i);
-                clusters.get(cluster).add(i);
+        agony = 0;
+        provisional = false;
+        for (int i = 0; i < maxDna; i++) {
+            // calc the max agony in ths cluster
+            agony += maxPairwise(members, clusterStart[i], clusterStart[i + 1], wait);
+        }
+    }
+
+    /**
+     * Returns the largest agony between any two of members[from..to). Only pairs
+     * whose upper bound beats the best lower bound can be the largest, so only
+     * those are looked up exactly. Unless told to wait, a pair that has not been
+     * solved yet counts with its upper bound rather than holding up the GA.
+     */
+    private int maxPairwise(int[] members, int from, int to, boolean wait) {
+        AgonyMatrix agonyMatrix = solver.agonyMatrix;
+        int max = 0;
+        for (int j = from; j < to; j++) {
+            int a = members[j];
+            for (int k = j + 1; k < to; k++) {
+                max = Math.max(max, agonyMatrix.lowerBound(a, members[k]));
             }
-            agony = 0;
-            for (int i = 0; i < maxDna; i++) {
-                int maxAgony = 0;
-                List<Integer> clusterNodes = clusters.get(i);
-
-                // calc the max agony in ths cluster
-                for (int j = 0; j < clusterNodes.size(); j++) {
-                    for (int k = j + 1; k < clusterNodes.size(); k++) {
-                        int agony = agonyMatrix[j][k];
-                        if (agony > maxAgony) {
-                            maxAgony = agony;
-                        }
+        }
+        for (int j = from; j < to; j++) {
+            int a = members[j];
+            for (int k = j + 1; k < to; k++) {
+                int upper = agonyMatrix.upperBound(a, members[k]);
+                if (upper > max) {
+                    int value = wait ? agonyMatrix.get(a, members[k]) : agonyMatrix.getOrRequest(a, members[k]);
+                    if (value < 0) {
+                        value = upper;
+                        provisional = true;
                     }
+                    max = Math.max(max, value);
                 }
-                agony += maxAgony;
             }
         }
-        return agony;
+        return max;
     }
 }
@@ -0,0 +1,112 @@
+package hps.nyu.fa14;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Collections2;
+
+/**
+ * An instance of the problem: a set of DAGs on the same nodes to be split into
+ * a fixed number of partitions
+ **/
+public class Problem {
+    public final int numNodes;
+    public final int numGraphs;
+    public final int numPartitions;
+    public final List<Graph> graphs;
+
+    public Problem(int numNodes, int numPartitions, List<Graph> graphs) {
+        this.numNodes = numNodes;
+        this.numGraphs = graphs.size();
+        this.numPartitions = numPartitions;
+        this.graphs = graphs;
+    }
+
+    /**
+     * Reads a problem in the input format, a line of "nodes graphs partitions"
+     * followed by one line of space separated "from,to" edges per graph
+     * @param reader
+     * @return
+     * @throws IOException if the input ends early
+     */
+    public static Problem read(BufferedReader reader) throws IOException {
+        return read(reader, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads a problem like read(reader), but refuses it before allocating anything
+     * if it has more nodes or graphs than allowed
+     * @param reader
+     * @param maxNodes
+     * @param maxGraphs
+     * @return
+     * @throws IOException if the input ends early, is too large or is malformed
+     */
+    public static Problem read(BufferedReader reader, int maxNodes, int maxGraphs) throws IOException {
+        // parse out params
+        String paramsString = reader.readLine();
+        if (paramsString == null) {
+            throw new IOException("Cannot readline");
+        }
+
+        List<Integer> params = new ArrayList<Integer>(Collections2.transform(
+                Arrays.asList(paramsString.trim().split(" ")),
+                new Function<String, Integer>() {
+                    @Override
+                    public Integer apply(String s) {
+                        return Integer.parseInt(s);
+                }
+        }));
+
+        int numNodes = params.get(0);
+        int numGraphs = params.get(1);
+        int numPartitions = params.get(2);
+
+        if (numNodes < 1 || numGraphs < 1 || numPartitions < 1 || numPartitions > numGraphs) {
+            throw new IOException("Invalid problem size");
+        }
+        if (numNodes > maxNodes || numGraphs > maxGraphs) {
+            throw new IOException("Problem too large");
+        }
+
+        List<Graph> graphs = new ArrayList<Graph>(numGraphs);
+
+        // Get graph specs
+        for (int i = 0; i < numGraphs; i++) {
+            Graph newGraph = new Graph(numNodes);
+
+            String graphSpec = reader.readLine();
+            if (graphSpec == null) {
+                throw new IOException("Cannot read graph line");
+            }
+
+            String[] graphSpecPairs = graphSpec.trim().split(" ");
+
+            for (String pair : graphSpecPairs) {
+                List<Integer> pairIndices = new ArrayList<Integer>(Collections2.transform(
+                        Arrays.asList(pair.split(",")),
+                        new Function<String, Integer>() {
+                            @Override
+                            public Integer apply(String s) {
+                                return Integer.parseInt(s);
+                        }
+                }));
+
+                int from = pairIndices.get(0);
+                int to = pairIndices.get(1);
+                if (from < 1 || from > numNodes || to < 1 || to > numNodes) {
+                    throw new IOException("Edge out of range");
+                }
+                newGraph.edges[from][to] = true;
+            }
+            graphs.add(newGraph);
+            assert AgonyUtil.getAgony(newGraph) == 0;
+        }
+
+        return new Problem(numNodes, numPartitions, graphs);
+    }
+}
@@ -0,0 +1,27 @@
+package hps.nyu.fa14;
+
+/**
+ * The kernels as plain loops, used when the Vector API is not available
+ **/
+class ScalarKernels implements Kernels.Ops {
+
+    @Override
+    public void or(boolean[] a, boolean[] b, boolean[] out, int from, int to) {
+        for (int j = from; j < to; j++) {
+            // non short circuit or, so there is no branch in the loop body
+            out[j] = a[j] | b[j];
+        }
+    }
+
+    @Override
+    public int rowAgony(int[] weights, int[] labels, int labelU, int from) {
+        int agony = 0;
+        int limit = labelU + 1;
+        for (int v = from; v < weights.length; v++) {
+            if (weights[v] > 0) {
+                agony += Math.max(limit - labels[v], 0);
+            }
+        }
+        return agony;
+    }
+}
@@ -0,0 +1,403 @@
+package hps.nyu.fa14;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Builds good starting partitions from the agony matrix so the GA does not have to
+ * discover the basic cluster structure from random organisms.
+ *
+ * Each heuristic treats the union agony of two graphs as the distance between
+ * them and aims at the same objective as Organism.getAgony, the sum over clusters
+ * of the largest distance inside the cluster. Agonies not solved yet are stood in
+ * for by their upper bound, so seeding never waits on AgonyUtil. Every heuristic
+ * gives up with a CancellationException soon after its thread is interrupted.
+ **/
+public class Seeder {
+    private static final int medoidIterations = 10;
+    private static final int powerIterations = 100;
+
+    private final AgonyMatrix agonyMatrix;
+    private final int size;
+    private final int partitions;
+
+    public Seeder(AgonyMatrix agonyMatrix, int partitions) {
+        this.agonyMatrix = agonyMatrix;
+        this.size = agonyMatrix.size;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Returns every heuristic as a separate task, the randomised ones from several
+     * starts, so they can run in parallel and each partition be used as soon as it
+     * is found
+     * @param restarts number of random starts for k-medoids and farthest-first
+     * @param rand
+     * @return
+     */
+    public List<Callable<List<Integer>>> heuristics(int restarts, Random rand) {
+        List<Callable<List<Integer>>> tasks = new ArrayList<Callable<List<Integer>>>();
+        for (int i = 0; i < restarts; i++) {
+            final Random medoidRand = new Random(rand.nextLong());
+            final Random farthestRand = new Random(rand.nextLong());
+            tasks.add(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() {
+                    return kMedoids(medoidRand);
+                }
+            });
+            tasks.add(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() {
+                    return farthestFirst(farthestRand);
+                }
+            });
+        }
+        tasks.add(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return agglomerative();
+            }
+        });
+        tasks.add(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() {
+                return spectralOrder();
+            }
+        });
+        return tasks;
+    }
+
+    /**
+     * k-medoids where each medoid is the member with the smallest largest distance
+     * to the rest of its cluster
+     * @param rand
+     * @return
+     */
+    public List<Integer> kMedoids(Random rand) {
+        int[] medoids = farthestCenters(rand);
+        int[] assignment = assignToNearest(medoids);
+
+        for (int iteration = 0; iteration < medoidIterations; iteration++) {
+            boolean changed = false;
+            for (int c = 0; c < medoids.length; c++) {
+                checkInterrupted();
+                int bestMedoid = medoids[c];
+                int bestRadius = Integer.MAX_VALUE;
+                for (int candidate = 0; candidate < size; candidate++) {
+                    if (assignment[candidate] != c) {
+                        continue;
+                    }
+                    int radius = 0;
+                    for (int member = 0; member < size && radius < bestRadius; member++) {
+                        if (assignment[member] == c) {
+                            radius = Math.max(radius, distance(candidate, member));
+                        }
+                    }
+                    if (radius < bestRadius) {
+                        bestRadius = radius;
+                        bestMedoid = candidate;
+                    }
+                }
+                if (bestMedoid != medoids[c]) {
+                    medoids[c] = bestMedoid;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            assignment = assignToNearest(medoids);
+        }
+        return toDna(assignment);
+    }
+
+    /**
+     * Picks centers that are as far apart as possible and assigns every graph to
+     * its nearest center
+     * @param rand
+     * @return
+     */
+    public List<Integer> farthestFirst(Random rand) {
+        return toDna(assignToNearest(farthestCenters(rand)));
+    }
+
+    /**
+     * Starts with every graph on its own and keeps merging the two clusters whose
+     * merge adds the least to the total cost until only the allowed number is left
+     * @return
+     */
+    public List<Integer> agglomerative() {
+        // cluster id of each graph, cluster ids are the index of one of its members
+        int[] cluster = new int[size];
+        int[] radius = new int[size];
+        // largest distance between any members of clusters a and b
+        int[][] linkage = new int[size][size];
+        boolean[] alive = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            checkInterrupted();
+            cluster[i] = i;
+            alive[i] = true;
+            for (int j = i + 1; j < size; j++) {
+                linkage[i][j] = linkage[j][i] = distance(i, j);
+            }
+        }
+
+        for (int clusters = size; clusters > partitions; clusters--) {
+            checkInterrupted();
+            int bestA = -1;
+            int bestB = -1;
+            int bestIncrease = Integer.MAX_VALUE;
+            for (int a = 0; a < size; a++) {
+                if (!alive[a]) {
+                    continue;
+                }
+                for (int b = a + 1; b < size; b++) {
+                    if (!alive[b]) {
+                        continue;
+                    }
+                    int merged = Math.max(linkage[a][b], Math.max(radius[a], radius[b]));
+                    int increase = merged - radius[a] - radius[b];
+                    if (increase < bestIncrease) {
+                        bestIncrease = increase;
+                        bestA = a;
+                        bestB = b;
+                    }
+                }
+            }
+
+            radius[bestA] = Math.max(linkage[bestA][bestB], Math.max(radius[bestA], radius[bestB]));
+            alive[bestB] = false;
+            for (int c = 0; c < size; c++) {
+                linkage[bestA][c] = linkage[c][bestA] = Math.max(linkage[bestA][c], linkage[bestB][c]);
+            }
+            for (int i = 0; i < size; i++) {
+                if (cluster[i] == bestB) {
+                    cluster[i] = bestA;
+                }
+            }
+        }
+
+        return toDna(relabel(cluster));
+    }
+
+    /**
+     * Orders the graphs along the second eigenvector of the normalised similarity
+     * matrix and then cuts that ordering into contiguous clusters as cheaply as
+     * possible
+     * @return
+     */
+    public List<Integer> spectralOrder() {
+        final double[] fiedler = fiedlerVector();
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(fiedler[a], fiedler[b]);
+            }
+        });
+
+        // segmentCost[i][j] is the largest distance among order[i..j]
+        int[][] segmentCost = new int[size][size];
+        for (int j = 0; j < size; j++) {
+            checkInterrupted();
+            int newest = 0;
+            for (int i = j - 1; i >= 0; i--) {
+                newest = Math.max(newest, distance(order[i], order[j]));
+                segmentCost[i][j] = Math.max(segmentCost[i][j - 1], newest);
+            }
+        }
+
+        // best[p][j] is the cheapest way to cut order[0..j-1] into p segments
+        int segments = Math.min(partitions, size);
+        long[][] best = new long[segments + 1][size + 1];
+        int[][] cut = new int[segments + 1][size + 1];
+        for (long[] row : best) {
+            Arrays.fill(row, Long.MAX_VALUE);
+        }
+        best[0][0] = 0;
+        for (int p = 1; p <= segments; p++) {
+            checkInterrupted();
+            best[p][0] = 0;
+            for (int j = 1; j <= size; j++) {
+                for (int i = 0; i < j; i++) {
+                    if (best[p - 1][i] == Long.MAX_VALUE) {
+                        continue;
+                    }
+                    long cost = best[p - 1][i] + segmentCost[i][j - 1];
+                    if (cost < best[p][j]) {
+                        best[p][j] = cost;
+                        cut[p][j] = i;
+                    }
+                }
+            }
+        }
+
+        int[] assignment = new int[size];
+        int end = size;
+        for (int p = segments; p > 0 && end > 0; p--) {
+            int start = cut[p][end];
+            for (int i = start; i < end; i++) {
+                assignment[order[i]] = p - 1;
+            }
+            end = start;
+        }
+        return toDna(assignment);
+    }
+
+    private double[] fiedlerVector() {
+        // similarity falls off with agony relative to the average agony
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            checkInterrupted();
+            for (int j = i + 1; j < size; j++) {
+                total += distance(i, j);
+            }
+        }
+        double scale = Math.max(1, total / Math.max(1, size * (size - 1) / 2));
+        double[][] similarity = new double[size][size];
+        double[] degree = new double[size];
+        for (int i = 0; i < size; i++) {
+            checkInterrupted();
+            for (int j = 0; j < size; j++) {
+                similarity[i][j] = Math.exp(-distance(i, j) / scale);
+                degree[i] += similarity[i][j];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                similarity[i][j] /= Math.sqrt(degree[i] * degree[j]);
+            }
+        }
+
+        // the top eigenvector of D^-1/2 W D^-1/2 is sqrt(degree), project it out
+        double[] top = new double[size];
+        for (int i = 0; i < size; i++) {
+            top[i] = Math.sqrt(degree[i]);
+        }
+        normalize(top);
+
+        double[] vector = new double[size];
+        for (int i = 0; i < size; i++) {
+            vector[i] = i - size / 2.0;
+        }
+        for (int iteration = 0; iteration < powerIterations; iteration++) {
+            checkInterrupted();
+            double projection = dot(vector, top);
+            for (int i = 0; i < size; i++) {
+                vector[i] -= projection * top[i];
+            }
+            double[] next = new double[size];
+            for (int i = 0; i < size; i++) {
+                // shift by one so the largest eigenvalue in magnitude is also the largest
+                next[i] = vector[i];
+                for (int j = 0; j < size; j++) {
+                    next[i] += similarity[i][j] * vector[j];
+                }
+            }
+            normalize(next);
+            vector = next;
+        }
+        for (int i = 0; i < size; i++) {
+            vector[i] /= top[i];
+        }
+        return vector;
+    }
+
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Seeding interrupted");
+        }
+    }
+
+    private int distance(int i, int j) {
+        return agonyMatrix.upperBound(i, j);
+    }
+
+    private int[] farthestCenters(Random rand) {
+        int centers = Math.min(partitions, size);
+        int[] chosen = new int[centers];
+        int[] distance = new int[size];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        chosen[0] = rand.nextInt(size);
+        for (int c = 1; c < centers; c++) {
+            checkInterrupted();
+            int farthest = -1;
+            for (int i = 0; i < size; i++) {
+                distance[i] = Math.min(distance[i], distance(i, chosen[c - 1]));
+                if (farthest == -1 || distance[i] > distance[farthest]) {
+                    farthest = i;
+                }
+            }
+            chosen[c] = farthest;
+        }
+        return chosen;
+    }
+
+    private int[] assignToNearest(int[] centers) {
+        int[] assignment = new int[size];
+        for (int i = 0; i < size; i++) {
+            checkInterrupted();
+            int nearest = 0;
+            int nearestDistance = Integer.MAX_VALUE;
+            for (int c = 0; c < centers.length; c++) {
+                int distance = distance(i, centers[c]);
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = c;
+                }
+            }
+            assignment[i] = nearest;
+        }
+        return assignment;
+    }
+
+    private static int[] relabel(int[] cluster) {
+        int[] labels = new int[cluster.length];
+        List<Integer> seen = new ArrayList<Integer>();
+        for (int i = 0; i < cluster.length; i++) {
+            int label = seen.indexOf(cluster[i]);
+            if (label == -1) {
+                label = seen.size();
+                seen.add(cluster[i]);
+            }
+            labels[i] = label;
+        }
+        return labels;
+    }
+
+    private static List<Integer> toDna(int[] assignment) {
+        List<Integer> dna = new ArrayList<Integer>(assignment.length);
+        for (int gene : assignment) {
+            dna.add(gene);
+        }
+        return Collections.unmodifiableList(dna);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static void normalize(double[] v) {
+        double norm = Math.sqrt(dot(v, v));
+        if (norm == 0) {
+            return;
+        }
+        for (int i = 0; i < v.length; i++) {
+            v[i] /= norm;
+        }
+    }
+}
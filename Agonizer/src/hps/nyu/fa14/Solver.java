@@ -0,0 +1,598 @@
+package hps.nyu.fa14;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the genetic algorithm on a single problem. All of the state of a run lives
+ * here, so several solvers can work on different problems at the same time.
+ **/
+public class Solver {
+    static final boolean onlyBestBreed = true;
+    // solve pairwise agonies as the GA asks for them instead of all up front
+    static final boolean lazyAgony = true;
+    // prefetch the pairs a sketch says conflict least before the rest
+    static final boolean sketchPairs = true;
+    private static final int sketchHashes = 64;
+    private static final int sketchBands = 16;
+    // threads for prefetching and seeding when the solver is not given a pool to share
+    private static final int backgroundThreads = Runtime.getRuntime().availableProcessors();
+    private static final int populationSize = 1000;
+    private static final int numGenerations = 1000;
+    private static final int numCycles = 10;
+    // share of each new population started from heuristic partitions, the rest is random
+    private static final double seededShare = 0.2;
+    private static final int seedRestarts = 4;
+    // mutation and selection adapt to how spread out the population is, measured as
+    // how far organisms are from the best beyond what mutation alone would explain
+    private static final double baseMutationRate = 0.15;
+    private static final double maxMutationRate = 0.5;
+    private static final double hyperMutationRate = 0.6;
+    private static final double lowDiversity = 0.02;
+    private static final double highDiversity = 0.1;
+    private static final int maxEliteSize = 20;
+    // best organisms of each generation scored exactly before breeding, enough to
+    // cover the widest breeding pool; the rest may be scored with bounds on pairs
+    // that are still being solved
+    private static final int settledCount = maxEliteSize;
+    // generations without improvement before a collapsed population is partly restarted
+    private static final int stallLimit = 50;
+    private static final double restartShare = 0.5;
+    // generations the restarted share breeds on its own before competing with the rest
+    private static final int restartProtection = 5;
+
+    private static final Comparator<Organism> byAgony = new Comparator<Organism>() {
+        @Override
+        public int compare(Organism a, Organism b) {
+            return Integer.compare(a.getAgony(), b.getAgony());
+        }
+    };
+
+    /**
+     * Told about every organism that beats the best seen so far
+     */
+    public interface Listener {
+        void newBest(Organism organism, int agony);
+
+        /**
+         * Called as each cycle starts over from a fresh population
+         * @param cycle
+         */
+        void newCycle(int cycle);
+    }
+
+    final Problem problem;
+    final int numGraphs;
+    final int numPartitions;
+    final AgonyMatrix agonyMatrix;
+    final Random rand;
+    Organism bestOrganism;
+    int bestAgony = Integer.MAX_VALUE;
+    private volatile boolean stopped = false;
+    private volatile long deadline = Long.MAX_VALUE;
+    private final ExecutorService background;
+    private final int backgroundWorkers;
+    private final Queue<GraphEdit> pendingEdits = new ConcurrentLinkedQueue<GraphEdit>();
+    // filled in by the seeding tasks as they finish, new populations use what is there
+    private final List<List<Integer>> seeds = new CopyOnWriteArrayList<List<Integer>>();
+    private final List<Future<?>> seeding = new ArrayList<Future<?>>();
+    private int seedRound = 0;
+    // how many of seeds are already in the running population
+    private int seedsUsed;
+    private ExecutorService pool;
+    double mutationRate = baseMutationRate;
+    private int eliteSize = 2;
+    private int stalledGenerations;
+    private int cycleBestAgony;
+    private int protectedGenerations;
+    private int protectedCount;
+
+    public Solver(Problem problem, Random rand) {
+        this(problem, rand, null, Math.max(1, backgroundThreads - 1));
+    }
+
+    /**
+     * A solver that prefetches and seeds on a pool shared with other solvers
+     * @param problem
+     * @param rand
+     * @param background the shared pool, or null for a pool of its own
+     * @param backgroundWorkers most pool threads this solver's prefetching may hold
+     */
+    public Solver(Problem problem, Random rand, ExecutorService background, int backgroundWorkers) {
+        this.background = background;
+        this.backgroundWorkers = backgroundWorkers;
+        this.problem = problem;
+        this.numGraphs = problem.numGraphs;
+        this.numPartitions = problem.numPartitions;
+        this.rand = rand;
+
+        agonyMatrix = new AgonyMatrix(problem.graphs);
+
+        if (sketchPairs) {
+            agonyMatrix.useSketch(new GraphSketch(problem.graphs, sketchHashes, sketchBands, rand));
+        }
+    }
+
+    /**
+     * Runs the GA to completion, or until stop is called
+     * @param listener
+     */
+    public void solve(Listener listener) {
+        pool = background != null ? background : backgroundPool(backgroundThreads);
+        if (lazyAgony) {
+            // fill in the rest of the matrix in the background while the GA runs
+            agonyMatrix.startPrefetch(pool, backgroundWorkers);
+        } else {
+            agonyMatrix.computeAll();
+        }
+
+        try {
+            startSeeding();
+
+            for (int i = 0; i < numCycles && running(); i++) {
+                listener.newCycle(i);
+                List<Organism> population = generatePopulation();
+                mutationRate = baseMutationRate;
+                eliteSize = 2;
+                stalledGenerations = 0;
+                cycleBestAgony = Integer.MAX_VALUE;
+                protectedGenerations = 0;
+
+                for (int j = 0; j < numGenerations && running(); j++) {
+                    applyPendingEdits(population);
+                    addNewSeeds(population);
+                    if (lazyAgony) {
+                        settleScores(population, listener);
+                    }
+                    population = generation(population, listener);
+                }
+            }
+        } finally {
+            stopSeeding();
+            agonyMatrix.stopPrefetch();
+            if (background == null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Runs the seeding heuristics in the background, on no more pool threads than
+     * prefetching may use. Each partition found is added to seeds, and addNewSeeds
+     * moves it into the running population at the next generation.
+     */
+    private void startSeeding() {
+        final int round;
+        synchronized (seeds) {
+            round = ++seedRound;
+            seeds.clear();
+        }
+        seedsUsed = 0;
+        final Queue<Callable<List<Integer>>> heuristics = new ConcurrentLinkedQueue<Callable<List<Integer>>>(
+                new Seeder(agonyMatrix, numPartitions).heuristics(seedRestarts, new Random(rand.nextLong())));
+        int runners = Math.min(backgroundWorkers, heuristics.size());
+        for (int r = 0; r < runners; r++) {
+            seeding.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Callable<List<Integer>> heuristic;
+                    while (!Thread.currentThread().isInterrupted() && (heuristic = heuristics.poll()) != null) {
+                        List<Integer> seed;
+                        try {
+                            seed = heuristic.call();
+                        } catch (Exception e) {
+                            // seeds are only a head start, the GA does fine without one
+                            continue;
+                        }
+                        synchronized (seeds) {
+                            // drop partitions worked out from graphs that have since been edited
+                            if (round == seedRound) {
+                                seeds.add(seed);
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Interrupts the seeding heuristics, which give up at their next check
+     */
+    private void stopSeeding() {
+        for (Future<?> task : seeding) {
+            task.cancel(true);
+        }
+        seeding.clear();
+    }
+
+    /**
+     * Scores the population without waiting for pairs that are still being solved,
+     * so a best is reported straight away, then scores exactly the organisms that
+     * rank high enough to breed, so parents are not picked by their bounds. Scores
+     * only change here, so within a generation sorting always sees the same numbers.
+     * @param population
+     * @param listener
+     */
+    private void settleScores(List<Organism> population, Listener listener) {
+        reportBest(population, listener);
+        List<Organism> ranked = new ArrayList<Organism>(population);
+        Collections.sort(ranked, byAgony);
+        for (Organism organism : ranked.subList(0, Math.min(settledCount, ranked.size()))) {
+            organism.settle();
+        }
+        reportBest(population, listener);
+    }
+
+    /**
+     * Puts the seeds that have arrived since the population was last given any in
+     * place of its worst organisms. Freshly restarted organisms are left alone.
+     * @param population
+     */
+    private void addNewSeeds(List<Organism> population) {
+        List<List<Integer>> arrived = new ArrayList<List<Integer>>(seeds);
+        int replaceable = protectedGenerations > 0 ? populationSize - protectedCount : populationSize;
+        for (int s = seedsUsed; s < arrived.size(); s++) {
+            int worst = 0;
+            for (int i = 1; i < replaceable; i++) {
+                if (population.get(i).getAgony() > population.get(worst).getAgony()) {
+                    worst = i;
+                }
+            }
+            population.set(worst, new Organism(this, arrived.get(s)));
+        }
+        seedsUsed = arrived.size();
+    }
+
+    /**
+     * Returns a pool of low priority daemon threads for prefetching and seeding,
+     * which can be shared between solvers
+     * @param threads
+     * @return
+     */
+    public static ExecutorService backgroundPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "solver-background");
+                // never keep the jvm alive just to fill in the matrix
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Makes a solve return after the current generation once this many
+     * milliseconds have passed
+     * @param millis
+     */
+    public void setTimeLimit(long millis) {
+        deadline = System.currentTimeMillis() + millis;
+    }
+
+    private boolean running() {
+        return !stopped && System.currentTimeMillis() < deadline;
+    }
+
+    /**
+     * Asks a running solve to return after the current generation
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Queues edge edits to the input graphs. A running solve picks them up before
+     * its next generation and keeps going from its current population; only the
+     * agonies of pairs involving an edited graph are recomputed.
+     * @param edits
+     * @throws IllegalArgumentException if any edit names a graph or node that does
+     * not exist, in which case none of them are queued
+     */
+    public void submitEdits(List<GraphEdit> edits) {
+        for (GraphEdit edit : edits) {
+            if (edit.graph < 0 || edit.graph >= numGraphs) {
+                throw new IllegalArgumentException("No graph " + edit.graph);
+            }
+            if (edit.from < 1 || edit.from > problem.numNodes || edit.to < 1 || edit.to > problem.numNodes) {
+                throw new IllegalArgumentException("No edge " + edit.from + "," + edit.to);
+            }
+        }
+        pendingEdits.addAll(edits);
+    }
+
+    public Organism getBestOrganism() {
+        return bestOrganism;
+    }
+
+    public int getBestAgony() {
+        return bestAgony;
+    }
+
+    public void prettyPrintAgony() {
+        for (int i = 0; i < numGraphs; i++) {
+            for (int j = 0; j < numGraphs; j++) {
+                System.out.print(agonyMatrix.get(i, j) + "\t");
+            }
+            System.out.print("\n");
+        }
+    }
+
+    private void applyPendingEdits(List<Organism> population) {
+        if (pendingEdits.isEmpty()) {
+            return;
+        }
+
+        // edit copies of the graphs so that threads still solving pairs with the
+        // old versions are not disturbed
+        Map<Integer, Graph> edited = new HashMap<Integer, Graph>();
+        GraphEdit edit;
+        while ((edit = pendingEdits.poll()) != null) {
+            Graph graph = edited.get(edit.graph);
+            if (graph == null) {
+                graph = problem.graphs.get(edit.graph).clone();
+                edited.put(edit.graph, graph);
+            }
+            graph.edges[edit.from][edit.to] = edit.insert;
+        }
+
+        for (Map.Entry<Integer, Graph> entry : edited.entrySet()) {
+            problem.graphs.set(entry.getKey(), entry.getValue());
+            agonyMatrix.updateGraph(entry.getKey(), entry.getValue());
+        }
+
+        // the old scores no longer mean anything
+        for (Organism organism : population) {
+            organism.invalidate();
+        }
+        bestOrganism = null;
+        bestAgony = Integer.MAX_VALUE;
+        stopSeeding();
+        startSeeding();
+        // nor does how long the cycle had gone without improving on them
+        cycleBestAgony = Integer.MAX_VALUE;
+        stalledGenerations = 0;
+    }
+
+    private List<Organism> generatePopulation() {
+        List<Organism> organisms = new ArrayList<Organism>(populationSize);
+        List<List<Integer>> seeds = new ArrayList<List<Integer>>(this.seeds);
+        seedsUsed = seeds.size();
+        int numSeeded = seeds.isEmpty() ? 0 : (int) (populationSize * seededShare);
+        for (int i = 0; i < numSeeded; i++) {
+            Organism seed = new Organism(this, seeds.get(i % seeds.size()));
+            if (i < seeds.size()) {
+                organisms.add(seed);
+            } else {
+                // mutated copies so the seeded share is not all clones
+                organisms.add(new Organism(seed, seed));
+            }
+        }
+        for (int i = numSeeded; i <  populationSize; i++) {
+            organisms.add(new Organism(this));
+        }
+        return  organisms;
+    }
+
+    private List<Organism> generation(List<Organism> population, Listener listener) {
+        if (protectedGenerations > 0) {
+            // freshly restarted organisms would never be picked over the established
+            // ones, so they breed among themselves at the end of the population for a while
+            protectedGenerations--;
+            int split = populationSize - protectedCount;
+            List<Organism> established = breed(population.subList(0, split));
+            List<Organism> restarted = breed(population.subList(split, populationSize));
+            population = new ArrayList<Organism>(populationSize);
+            population.addAll(established);
+            population.addAll(restarted);
+        } else {
+            population = breed(population);
+        }
+        reportBest(population, listener);
+        adapt(population);
+        return population;
+    }
+
+    private void reportBest(List<Organism> population, Listener listener) {
+        for (Organism organism : population) {
+            if (organism.getAgony() < bestAgony) {
+                bestAgony = organism.getAgony();
+                bestOrganism = organism;
+                listener.newBest(organism, bestAgony);
+                // the pairs inside the best organism's clusters are the ones to solve next
+                agonyMatrix.prefetchClusters(organism.dna);
+            }
+        }
+    }
+
+    /**
+     * Returns as many children of the given organisms as there are organisms
+     * @param population
+     * @return
+     */
+    private List<Organism> breed(List<Organism> population) {
+        int size = population.size();
+        List<Organism> newPopulation = new ArrayList<Organism>(size);
+        if (onlyBestBreed && eliteSize > 2) {
+            // the population has collapsed, breed from a wider pool than the top two
+            List<Organism> ranked = new ArrayList<Organism>(population);
+            Collections.sort(ranked, byAgony);
+            List<Organism> elite = ranked.subList(0, Math.min(eliteSize, ranked.size()));
+            for (int i = 0; i < size; i++) {
+                Organism parentA = elite.get(rand.nextInt(elite.size()));
+                Organism parentB = elite.get(rand.nextInt(elite.size()));
+                newPopulation.add(new Organism(parentA, parentB));
+            }
+        } else if (onlyBestBreed) {
+            int bestSeen = Integer.MAX_VALUE;
+            int secondBestSeen = Integer.MAX_VALUE;
+            Organism best = null;
+            Organism secondBest = null;
+            for (Organism organism : population) {
+                int agony = organism.getAgony();
+                if (agony <= bestSeen) {
+                    secondBest = best;
+                    secondBestSeen = bestSeen;
+                    best = organism;
+                    bestSeen = agony;
+                } else if (agony <= secondBestSeen) {
+                    secondBest = organism;
+                    secondBestSeen = agony;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                newPopulation.add(new Organism(best, secondBest));
+            }
+        } else {
+            int maxAgony = 0;
+            for (Organism organism : population) {
+                if (organism.getAgony() > maxAgony) {
+                    maxAgony = organism.getAgony();
+                }
+            }
+
+            List<Integer> cumulativeDistance = new ArrayList<Integer>(size);
+
+            for (int i = 0; i < size; i++) {
+                Organism organism = population.get(i);
+                int distance = maxAgony - organism.getAgony();
+                int transformedDistance = 1 + distance * distance;
+                if (i != 0) {
+                    transformedDistance += cumulativeDistance.get(i - 1);
+                }
+                cumulativeDistance.add(transformedDistance);
+            }
+
+            for (int i = 0; i < size; i++) {
+                Organism parentA = population.get(weightedRandom(cumulativeDistance));
+                Organism parentB = population.get(weightedRandom(cumulativeDistance));
+                newPopulation.add(new Organism(parentA, parentB));
+            }
+        }
+        return newPopulation;
+    }
+
+    /**
+     * Adjusts the mutation rate and the breeding pool to the diversity of the
+     * population, and restarts part of it when it has collapsed and stopped improving
+     * @param population
+     */
+    private void adapt(List<Organism> population) {
+        int generationBest = Integer.MAX_VALUE;
+        for (Organism organism : population) {
+            generationBest = Math.min(generationBest, organism.getAgony());
+        }
+        if (generationBest < cycleBestAgony) {
+            cycleBestAgony = generationBest;
+            stalledGenerations = 0;
+        } else {
+            stalledGenerations++;
+        }
+
+        double diversity = diversity(population);
+        if (diversity < lowDiversity) {
+            mutationRate = Math.min(maxMutationRate, mutationRate * 1.5);
+            eliteSize = Math.min(maxEliteSize, eliteSize * 2);
+        } else if (diversity > highDiversity) {
+            mutationRate = Math.max(baseMutationRate, mutationRate / 1.5);
+            eliteSize = Math.max(2, eliteSize / 2);
+        }
+
+        if (stalledGenerations >= stallLimit && diversity < lowDiversity) {
+            // keep the better half, replace the rest with fresh organisms that get a few
+            // generations to themselves, and shake everything up with one generation of
+            // heavy mutation
+            Collections.sort(population, byAgony);
+            List<Organism> fresh = generatePopulation();
+            Collections.shuffle(fresh, rand);
+            protectedCount = (int) (populationSize * restartShare);
+            for (int i = 0; i < protectedCount; i++) {
+                population.set(populationSize - 1 - i, fresh.get(i));
+            }
+            protectedGenerations = restartProtection;
+            mutationRate = hyperMutationRate;
+            stalledGenerations = 0;
+        }
+    }
+
+    /**
+     * Returns how far the population is spread around its best organism: the mean
+     * share of genes where an organism, with its partitions matched to the best's,
+     * disagrees with it. Two children of the same parents already disagree on some
+     * genes purely from mutation at the current rate, so that much is taken off,
+     * and the rest is scaled so that random organisms come out near 1.
+     * @param population
+     * @return
+     */
+    private double diversity(List<Organism> population) {
+        if (numPartitions < 2) {
+            return 0;
+        }
+        Organism best = getBest(population);
+        long differing = 0;
+        for (Organism organism : population) {
+            Organism aligned = organism.clone();
+            aligned.match(best);
+            for (int i = 0; i < numGraphs; i++) {
+                if (!aligned.dna.get(i).equals(best.dna.get(i))) {
+                    differing++;
+                }
+            }
+        }
+        double distance = (double) differing / ((long) population.size() * numGraphs);
+
+        // chance that two genes copied from the same parent end up different
+        double keep = 1 - mutationRate + mutationRate / numPartitions;
+        double change = mutationRate / numPartitions;
+        double noise = 1 - (keep * keep + (numPartitions - 1) * change * change);
+
+        double random = 1 - 1.0 / numPartitions;
+        return Math.max(0, (distance - noise) / (random - noise));
+    }
+
+    private int weightedRandom(List<Integer> cumulativeWeights) {
+        int totalWeight = cumulativeWeights.get(cumulativeWeights.size() - 1);
+        int randPick = 1 + rand.nextInt(totalWeight);
+        for (int i = 0; i < cumulativeWeights.size(); i++) {
+            if (cumulativeWeights.get(i) >= randPick) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static Organism getBest(List<Organism> population) {
+        int lowestAgony = Integer.MAX_VALUE;
+        Organism best = null;
+        for (Organism organism : population) {
+            int agony = organism.getAgony();
+            if (agony < lowestAgony) {
+                lowestAgony = organism.getAgony();
+                best = organism;
+            }
+        }
+        return best;
+    }
+
+    public static void printDna(Organism organism) {
+        for (int i = 0; i < organism.dna.size(); i ++) {
+            System.out.print(organism.dna.get(i) + " ");
+        }
+        System.out.print("\n");
+    }
+}
@@ -0,0 +1,38 @@
+package hps.nyu.fa14;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels written with the jdk.incubator.vector API, a full vector of lanes per
+ * step with the leftover tail done one element at a time. Only ever loaded through
+ * the probe in Kernels, which falls back to ScalarKernels if the module is missing.
+ *
+ * or is inherited: C2 already vectorizes the scalar loop, and loading the boolean
+ * rows as masks measured about half as fast (see KernelBenchmark).
+ **/
+class VectorKernels extends ScalarKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public int rowAgony(int[] weights, int[] labels, int labelU, int from) {
+        int limit = labelU + 1;
+        IntVector limits = IntVector.broadcast(INTS, limit);
+        IntVector sums = IntVector.zero(INTS);
+        int v = from;
+        for (int upper = from + INTS.loopBound(weights.length - from); v < upper; v += INTS.length()) {
+            VectorMask<Integer> edges = IntVector.fromArray(INTS, weights, v).compare(VectorOperators.GT, 0);
+            IntVector paid = limits.sub(IntVector.fromArray(INTS, labels, v)).max(0);
+            sums = sums.add(paid, edges);
+        }
+        int agony = sums.reduceLanes(VectorOperators.ADD);
+        for (; v < weights.length; v++) {
+            if (weights[v] > 0) {
+                agony += Math.max(limit - labels[v], 0);
+            }
+        }
+        return agony;
+    }
+}
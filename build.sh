@@ -0,0 +1,11 @@
+#!/bin/bash
+# compiles the sources into out/production/Agonizer, where start.sh and daemon.sh run them from
+cd "$(dirname "$0")"
+mkdir -p out/production/Agonizer
+sources=$(find Agonizer/src -name '*.java')
+if java --list-modules 2>/dev/null | grep -q '^jdk.incubator.vector'; then
+    javac --add-modules jdk.incubator.vector -cp "./Agonizer/deps/*" -d out/production/Agonizer $sources
+else
+    # no Vector API on this JDK, Kernels falls back to the scalar loops
+    javac -cp "./Agonizer/deps/*" -d out/production/Agonizer $(echo "$sources" | grep -v VectorKernels.java)
+fi
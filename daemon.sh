@@ -0,0 +1,4 @@
+#!/bin/bash
+# the Vector API kernels need their incubator module, Kernels falls back without it
+java --list-modules 2>/dev/null | grep -q '^jdk.incubator.vector' && modules="--add-modules jdk.incubator.vector"
+java $modules -cp "./Agonizer/deps/*:out/production/Agonizer/" hps.nyu.fa14.Main --daemon $1
@@ -1,4 +1,6 @@
 #!/bin/bash
+# the Vector API kernels need their incubator module, Kernels falls back without it
+java --list-modules 2>/dev/null | grep -q '^jdk.incubator.vector' && modules="--add-modules jdk.incubator.vector"
 echo $2
 echo $1
-java -cp "./Agonizer/deps/*:out/production/Agonizer/" hps.nyu.fa14.Main $2 < $1
+java $modules -cp "./Agonizer/deps/*:out/production/Agonizer/" hps.nyu.fa14.Main $2 < $1